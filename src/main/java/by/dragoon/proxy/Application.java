@@ -5,6 +5,7 @@ import org.apache.log4j.Logger;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -64,15 +65,21 @@ public class Application {
 			}
 		}
 
-		Map<Integer, String> localPorts = new HashMap<Integer, String>();
+		// local port or unix domain socket path. Mappings with routing rules can share local address, but only one
+		// mapping without rules (default route) allowed for address
+		Map<SocketAddress, String> localAddresses = new HashMap<SocketAddress, String>();
 		for (ConfigNode entry : configNodes.values()) {
 			if (entry.isConfigured()) {
-				String conflictName = localPorts.get(entry.getLocalPort());
+				if (entry.hasRoutes()) {
+					configNodeList.add(entry);
+					continue;
+				}
+				String conflictName = localAddresses.get(entry.getLocalSocketAddress());
 				if (conflictName == null) {
 					configNodeList.add(entry);
-					localPorts.put(entry.getLocalPort(), entry.getName());
+					localAddresses.put(entry.getLocalSocketAddress(), entry.getName());
 				} else {
-					LOG.error(String.format("Mapping local port configuration '%s' conflict with '%s'. Mapping node with name '%s' skipped.", conflictName, entry.getName(), entry.getName()));
+					LOG.error(String.format("Mapping local address configuration '%s' conflict with '%s'. Mapping node with name '%s' skipped.", conflictName, entry.getName(), entry.getName()));
 				}
 			}
 		}
@@ -3,6 +3,10 @@ package by.dragoon.proxy;
 import org.apache.log4j.Logger;
 
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * User: dragoon
@@ -16,18 +20,40 @@ public class ConfigNode {
 	private static final String LOCAL_PORT = "localPort";
 	private static final String REMOTE_PORT = "remotePort";
 	private static final String REMOTE_HOST = "remoteHost";
+	private static final String LOCAL_PATH = "localPath";
+	private static final String WEIGHT = "weight";
+	// keeps per round budgets of mapping (weight * quantum) within int
+	private static final int MAX_WEIGHT = 1000;
+	// routing rules for mappings sharing one local address, comma separated values
+	private static final String SNI = "sni";
+	private static final String HOST = "host";
+	private static final String PREFIX = "prefix";
+	private static final String VALUES_DELIMITER = ",";
+	// remoteHost with this prefix is a unix domain socket path, remotePort is ignored
+	private static final String UNIX_PREFIX = "unix:";
 
 	private int localPort;
+	private String localPath;
 	private String remoteHost;
 	private int remotePort;
 	private String name;
-	private InetSocketAddress remoteSocketAdress;
+	// share of selector loop work under contention, relative to other mappings
+	private int weight;
+	private List<String> sniNames;
+	private List<String> hostNames;
+	private List<String> prefixes;
+	private SocketAddress remoteSocketAdress;
 
 	public ConfigNode(String name) {
 		this.name = name;
 		localPort = -1;
+		localPath = null;
 		remotePort = -1;
 		remoteHost = null;
+		weight = 1;
+		sniNames = new ArrayList<String>();
+		hostNames = new ArrayList<String>();
+		prefixes = new ArrayList<String>();
 		remoteSocketAdress = null;
 	}
 
@@ -38,6 +64,21 @@ public class ConfigNode {
 			setRemotePort(parseInt(value));
 		} else if (REMOTE_HOST.equals(parameter)) {
 			setRemoteHost(value);
+		} else if (LOCAL_PATH.equals(parameter)) {
+			setLocalPath(value);
+		} else if (WEIGHT.equals(parameter)) {
+			setWeight(parseInt(value));
+		} else if (SNI.equals(parameter)) {
+			sniNames.addAll(parseNames(value));
+		} else if (HOST.equals(parameter)) {
+			hostNames.addAll(parseNames(value));
+		} else if (PREFIX.equals(parameter)) {
+			// prefix is taken as is, spaces can be a part of it. Empty prefix would match every connection
+			if ("".equals(value)) {
+				LOG.error(String.format("Empty prefix of mapping '%s' skipped", name));
+			} else {
+				prefixes.add(value);
+			}
 		} else {
 			LOG.error(String.format("Parameter %s is not supported", parameter));
 		}
@@ -52,6 +93,17 @@ public class ConfigNode {
 		}
 	}
 
+	private List<String> parseNames(String value) {
+		List<String> names = new ArrayList<String>();
+		for (String name : value.split(VALUES_DELIMITER)) {
+			name = name.trim().toLowerCase();
+			if (!"".equals(name)) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
 	public int getLocalPort() {
 		return localPort;
 	}
@@ -74,18 +126,87 @@ public class ConfigNode {
 		this.localPort = localPort;
 	}
 
+	public String getLocalPath() {
+		return localPath;
+	}
+
+	public void setLocalPath(String localPath) {
+		this.localPath = localPath == null || "".equals(localPath) ? null : localPath;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	public void setWeight(int weight) {
+		if (weight <= 0) {
+			LOG.error(String.format("Weight %s of mapping '%s' is not positive, default weight used", weight, name));
+		} else if (weight > MAX_WEIGHT) {
+			LOG.error(String.format("Weight %s of mapping '%s' is greater than %s, maximum weight used", weight, name,
+					MAX_WEIGHT));
+			this.weight = MAX_WEIGHT;
+		} else {
+			this.weight = weight;
+		}
+	}
+
+	public List<String> getSniNames() {
+		return sniNames;
+	}
+
+	public List<String> getHostNames() {
+		return hostNames;
+	}
+
+	public List<String> getPrefixes() {
+		return prefixes;
+	}
+
+	/**
+	 * @return True if mapping selected by sniffing first bytes of client stream
+	 */
+	public boolean hasRoutes() {
+		return !sniNames.isEmpty() || !hostNames.isEmpty() || !prefixes.isEmpty();
+	}
+
 	public String getName() {
 		return name;
 	}
 
-	public InetSocketAddress getRemoteSocketAddress() {
+	/**
+	 * Local listening address. Unix domain socket path have priority over local port
+	 *
+	 * @return Address to bind listening channel
+	 */
+	public SocketAddress getLocalSocketAddress() {
+		if (localPath != null) {
+			return UnixDomainSocketAddress.of(localPath);
+		}
+		return new InetSocketAddress(localPort);
+	}
+
+	public boolean isLocalUnix() {
+		return localPath != null;
+	}
+
+	public SocketAddress getRemoteSocketAddress() {
 		if (remoteSocketAdress == null && isConfigured()) {
-			remoteSocketAdress = new InetSocketAddress(remoteHost, remotePort);
+			if (isRemoteUnix()) {
+				remoteSocketAdress = UnixDomainSocketAddress.of(remoteHost.substring(UNIX_PREFIX.length()));
+			} else {
+				remoteSocketAdress = new InetSocketAddress(remoteHost, remotePort);
+			}
 		}
 		return remoteSocketAdress;
 	}
 
+	public boolean isRemoteUnix() {
+		return remoteHost != null && remoteHost.startsWith(UNIX_PREFIX) && remoteHost.length() > UNIX_PREFIX.length();
+	}
+
 	public boolean isConfigured() {
-		return localPort > -1 && remotePort > -1 && remoteHost != null && !"".equals(remoteHost);
+		boolean localConfigured = localPort > -1 || localPath != null;
+		boolean remoteConfigured = isRemoteUnix() || (remotePort > -1 && remoteHost != null && !"".equals(remoteHost));
+		return localConfigured && remoteConfigured;
 	}
 }
@@ -0,0 +1,86 @@
+package by.dragoon.proxy;
+
+import java.nio.channels.SelectionKey;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Ready selection keys of one mapping waiting for processing, with mapping deficit round robin state.
+ * Every round mapping receives bytes and operations budget proportional to its weight. Keys left after
+ * budget exhaustion wait for the next round, unused bytes budget carried over only while keys are waiting and
+ * never exceeds one round budget plus one operation bytes.
+ */
+public class MappingQueue {
+
+	private int weight;
+	// maximum bytes one operation can exceed the remaining budget by (read buffer size)
+	private int operationBytes;
+	// insertion ordered, so deferred keys processed before newly selected ones
+	private Set<SelectionKey> readyKeys = new LinkedHashSet<SelectionKey>();
+	private long deficit;
+	private long operations;
+
+	public MappingQueue(int weight, int operationBytes) {
+		this.weight = weight;
+		this.operationBytes = operationBytes;
+		deficit = 0;
+		operations = 0;
+	}
+
+	public void offer(SelectionKey selectionKey) {
+		readyKeys.add(selectionKey);
+	}
+
+	public boolean isEmpty() {
+		return readyKeys.isEmpty();
+	}
+
+	/**
+	 * Grant mapping its budget for current round
+	 *
+	 * @param bytesQuantum      Bytes budget for mapping with weight 1
+	 * @param operationsQuantum Operations budget for mapping with weight 1
+	 */
+	public void startRound(int bytesQuantum, int operationsQuantum) {
+		long roundBytes = (long) bytesQuantum * weight;
+		// Round ended by operations budget leaves bytes unused, they must not pile up into one long write
+		deficit = Math.min(deficit + roundBytes, roundBytes + operationBytes);
+		operations = (long) operationsQuantum * weight;
+	}
+
+	public boolean hasBudget() {
+		return !readyKeys.isEmpty() && deficit > 0 && operations > 0;
+	}
+
+	public long getDeficit() {
+		return deficit;
+	}
+
+	/**
+	 * @return Next ready key, removed from queue
+	 */
+	public SelectionKey poll() {
+		Iterator<SelectionKey> iterator = readyKeys.iterator();
+		SelectionKey selectionKey = iterator.next();
+		iterator.remove();
+		return selectionKey;
+	}
+
+	/**
+	 * Account one processed operation
+	 *
+	 * @param bytes Bytes transferred by operation
+	 */
+	public void charge(int bytes) {
+		deficit -= bytes;
+		operations--;
+	}
+
+	public void finishRound() {
+		// Idle mapping must not save budget for later bursts
+		if (readyKeys.isEmpty()) {
+			deficit = 0;
+		}
+	}
+}
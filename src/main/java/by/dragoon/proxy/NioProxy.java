@@ -3,8 +3,9 @@ package by.dragoon.proxy;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
-import java.net.BindException;
-import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedByInterruptException;
@@ -14,13 +15,17 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.UnresolvedAddressException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * User: dragoon
@@ -32,20 +37,47 @@ public class NioProxy implements Runnable {
 	private static final Logger LOG = Logger.getLogger(NioProxy.class);
 	private static final String PEER_RESET_CONNECTION_EXCEPTION = "java.io.IOException: Connection reset by peer";
 	private static final String CONNECTION_REFUSED = "java.net.ConnectException: Connection refused";
+	// Per round budget of mapping with weight 1
+	static final int BYTES_QUANTUM = 64 * 1024;
+	static final int OPERATIONS_QUANTUM = 16;
+	static final int BUFFER_SIZE = 8192;
+	// Routed connection is sent to default mapping (or closed) if no route found within these limits
+	private static final int SNIFF_BUFFER_SIZE = 8192;
+	private static final long DEFAULT_SNIFF_TIMEOUT = 5000;
 
 	private Selector connectionsSelector;
-	private ByteBuffer buffer = ByteBuffer.allocate(8192);
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
 
 	private List<ConfigNode> configNodes;
 	// channels data write messages queues
 	private Map<SelectableChannel, LinkedList<ByteBuffer>> pendingData = new HashMap<SelectableChannel,
 			LinkedList<ByteBuffer>>();
 	private Set<SelectableChannel> openedChannels = new HashSet<SelectableChannel>();
+	// ready keys of every mapping, in round robin order. Package visible for scheduler tests
+	List<MappingQueue> mappingQueues = new ArrayList<MappingQueue>();
+	// listening and connections channels mapping queues
+	private Map<SelectableChannel, MappingQueue> channelQueues = new HashMap<SelectableChannel, MappingQueue>();
+	private Map<ConfigNode, MappingQueue> nodeQueues = new HashMap<ConfigNode, MappingQueue>();
+	private int roundStart = 0;
+	// first bytes of routed connections waiting for route
+	private Map<SelectableChannel, ByteBuffer> sniffBuffers = new HashMap<SelectableChannel, ByteBuffer>();
+	// routing deadlines (System.nanoTime), in accept order (so in deadlines order too)
+	private Map<SelectableChannel, Long> sniffDeadlines = new LinkedHashMap<SelectableChannel, Long>();
+	private long sniffTimeout = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SNIFF_TIMEOUT);
 
 	public NioProxy(List<ConfigNode> configNodes) {
 		this.configNodes = configNodes;
 	}
 
+	/**
+	 * Set time routed connection waits for data matching its route. Must be called before start
+	 *
+	 * @param sniffTimeout Timeout in milliseconds
+	 */
+	public void setSniffTimeout(long sniffTimeout) {
+		this.sniffTimeout = TimeUnit.MILLISECONDS.toNanos(sniffTimeout);
+	}
+
 	@Override
 	public void run() {
 		try {
@@ -92,54 +124,185 @@ public class NioProxy implements Runnable {
 
 		connectionsSelector = Selector.open();
 
-		// Start listening all configured nodes
+		// Group nodes by local address, nodes sharing address selected by routing rules
+		Map<SocketAddress, List<ConfigNode>> localAddresses = new LinkedHashMap<SocketAddress, List<ConfigNode>>();
 		for (ConfigNode configNode : configNodes) {
-			ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+			MappingQueue mappingQueue = new MappingQueue(configNode.getWeight(), BUFFER_SIZE);
+			mappingQueues.add(mappingQueue);
+			nodeQueues.put(configNode, mappingQueue);
+
+			List<ConfigNode> addressNodes = localAddresses.get(configNode.getLocalSocketAddress());
+			if (addressNodes == null) {
+				addressNodes = new ArrayList<ConfigNode>();
+				localAddresses.put(configNode.getLocalSocketAddress(), addressNodes);
+			}
+			addressNodes.add(configNode);
+		}
+
+		// Start listening all configured addresses
+		for (Map.Entry<SocketAddress, List<ConfigNode>> entry : localAddresses.entrySet()) {
+			List<ConfigNode> addressNodes = entry.getValue();
+			ConfigNode configNode = addressNodes.get(0);
+			ServerSocketChannel serverSocketChannel = configNode.isLocalUnix()
+					? ServerSocketChannel.open(StandardProtocolFamily.UNIX) : ServerSocketChannel.open();
 			openedChannels.add(serverSocketChannel);
 			serverSocketChannel.configureBlocking(false);
-			InetSocketAddress socketAddress = new InetSocketAddress(configNode.getLocalPort());
+			SocketAddress socketAddress = entry.getKey();
+
+			// Single node without rules accepted directly, otherwise accepted connections wait for route
+			Object acceptAttachment = configNode;
+			MappingQueue acceptQueue = nodeQueues.get(configNode);
+			if (addressNodes.size() > 1 || configNode.hasRoutes()) {
+				acceptAttachment = new RouteTable(addressNodes);
+				acceptQueue = new MappingQueue(1, BUFFER_SIZE);
+				mappingQueues.add(acceptQueue);
+			}
 
 			if (LOG.isInfoEnabled()) {
-				LOG.info(String.format("Bind to %s", socketAddress));
+				LOG.info(String.format("Bind to %s (%s mappings)", socketAddress, addressNodes.size()));
 			}
 			try {
-				serverSocketChannel.socket().bind(socketAddress);
-				// register SocketChannel && attach ConfigNode (can replace with InetSocketAddress)
-				serverSocketChannel.register(connectionsSelector, SelectionKey.OP_ACCEPT).attach(configNode);
-			} catch (BindException e) {
-				// If, for example, local port is busy, we not interrupted, but skip this node
+				if (socketAddress instanceof UnixDomainSocketAddress) {
+					removeStaleSocketFile((UnixDomainSocketAddress) socketAddress);
+				}
+				// ServerSocket adaptor is not supported for unix domain sockets, bind channel directly
+				serverSocketChannel.bind(socketAddress);
+				// register SocketChannel && attach ConfigNode or RouteTable
+				serverSocketChannel.register(connectionsSelector, SelectionKey.OP_ACCEPT).attach(acceptAttachment);
+				channelQueues.put(serverSocketChannel, acceptQueue);
+			} catch (ClosedByInterruptException e) {
+				throw e;
+			} catch (IOException e) {
+				// If, for example, local port is busy or unix socket path is invalid, we not interrupted, but skip
+				// this node. Unix domain socket bind errors are SocketException, not BindException
 				LOG.error(String.format("Error while binding to %s", socketAddress), e);
+				closeChannel(serverSocketChannel);
 			}
 		}
 
 		while (!Thread.interrupted()) {
-			int selectionKeysCount = connectionsSelector.select();
-			if (selectionKeysCount == 0) {
-				continue;
+			// Deferred keys are ready already, so don't block waiting new ones
+			if (hasDeferredKeys()) {
+				connectionsSelector.selectNow();
+			} else if (sniffDeadlines.isEmpty()) {
+				connectionsSelector.select();
+			} else {
+				// Wake up for the nearest routing deadline
+				long timeout = sniffDeadlines.values().iterator().next() - System.nanoTime();
+				// round up, so selector not woken before deadline
+				connectionsSelector.select(Math.max(1, (timeout + 999999) / 1000000));
 			}
 
-			Iterator selectedKeysIterator = connectionsSelector.selectedKeys().iterator();
-			while (selectedKeysIterator.hasNext()) {
-				SelectionKey selectionKey = (SelectionKey) selectedKeysIterator.next();
-				selectedKeysIterator.remove();
-
-				if (!selectionKey.isValid()) {
-					continue;
+			Set<SelectionKey> selectedKeys = connectionsSelector.selectedKeys();
+			for (SelectionKey selectionKey : selectedKeys) {
+				MappingQueue mappingQueue = channelQueues.get(selectionKey.channel());
+				if (mappingQueue != null && selectionKey.isValid()) {
+					mappingQueue.offer(selectionKey);
 				}
+			}
+			selectedKeys.clear();
+
+			expireSniffing();
+			processMappingQueues();
+		}
+	}
 
-				if (selectionKey.isReadable()) {
-					readData(selectionKey);
-				} else if (selectionKey.isWritable()) {
-					writeData(selectionKey);
-				} else if (selectionKey.isConnectable()) {
-					finishConnection(selectionKey);
-				} else if (selectionKey.isAcceptable()) {
-					acceptConnection(selectionKey);
+	/**
+	 * Delete unix domain socket file left by killed process, so bind to its path succeed. File is kept if
+	 * something still accepts connections on it
+	 *
+	 * @param socketAddress Listening unix domain socket address
+	 * @throws IOException If an I/O error occurs
+	 */
+	private void removeStaleSocketFile(UnixDomainSocketAddress socketAddress) throws IOException {
+		Path path = socketAddress.getPath();
+		// Only socket files removed, ordinary file or directory on this path is a configuration mistake
+		if (!Files.exists(path) || Files.isRegularFile(path) || Files.isDirectory(path)) {
+			return;
+		}
+		SocketChannel probeChannel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			probeChannel.connect(socketAddress);
+			// Socket is alive, bind will fail and node will be skipped
+			return;
+		} catch (ClosedByInterruptException e) {
+			throw e;
+		} catch (IOException e) {
+			if (LOG.isInfoEnabled()) {
+				LOG.info(String.format("Remove stale socket file %s", socketAddress));
+			}
+		} finally {
+			probeChannel.close();
+		}
+		Files.deleteIfExists(path);
+	}
+
+	private boolean hasDeferredKeys() {
+		for (MappingQueue mappingQueue : mappingQueues) {
+			if (!mappingQueue.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * One deficit round robin round: process ready keys of every mapping within its budget. Mapping with bulk
+	 * transfers can't delay other mappings more than its budget, rest of its keys deferred to next round
+	 *
+	 * @throws IOException If an I/O error occurs
+	 */
+	void processMappingQueues() throws IOException {
+		int mappingsCount = mappingQueues.size();
+		for (int i = 0; i != mappingsCount; i++) {
+			// Rotate first mapping of round, so no one always served first
+			MappingQueue mappingQueue = mappingQueues.get((roundStart + i) % mappingsCount);
+			if (mappingQueue.isEmpty()) {
+				continue;
+			}
+
+			mappingQueue.startRound(BYTES_QUANTUM, OPERATIONS_QUANTUM);
+			while (mappingQueue.hasBudget()) {
+				SelectionKey selectionKey = mappingQueue.poll();
+				// Key could be cancelled while processing previous keys
+				if (selectionKey.isValid()) {
+					mappingQueue.charge(processKey(selectionKey, mappingQueue.getDeficit()));
 				}
 			}
+			mappingQueue.finishRound();
+		}
+		if (mappingsCount > 0) {
+			roundStart = (roundStart + 1) % mappingsCount;
 		}
 	}
 
+	/**
+	 * Process one ready key
+	 *
+	 * @param selectionKey Ready key
+	 * @param bytesLimit   Bytes count after which writing stops
+	 * @return Bytes transferred
+	 * @throws IOException If an I/O error occurs
+	 */
+	int processKey(SelectionKey selectionKey, long bytesLimit) throws IOException {
+		// Routed connections keys contain RouteTable as attach until route found
+		boolean routed = selectionKey.attachment() instanceof RouteTable;
+		if (selectionKey.isReadable()) {
+			return routed ? sniffData(selectionKey) : readData(selectionKey);
+		} else if (selectionKey.isWritable()) {
+			return writeData(selectionKey, bytesLimit);
+		} else if (selectionKey.isConnectable()) {
+			finishConnection(selectionKey);
+		} else if (selectionKey.isAcceptable()) {
+			if (routed) {
+				acceptRoutedConnection(selectionKey);
+			} else {
+				acceptConnection(selectionKey);
+			}
+		}
+		return 0;
+	}
+
 	/**
 	 * Accept requested connections
 	 *
@@ -150,34 +313,69 @@ public class NioProxy implements Runnable {
 		// only accepting keys contain ConfigNode as attach
 		ConfigNode configNode = (ConfigNode) selectionKey.attachment();
 		if (LOG.isInfoEnabled()) {
-			LOG.info(String.format("Attempting connect to %s (local port %s)", configNode.getRemoteSocketAddress(),
-					configNode.getLocalPort()));
+			LOG.info(String.format("Attempting connect to %s (local address %s)", configNode.getRemoteSocketAddress(),
+					configNode.getLocalSocketAddress()));
 		}
 
 		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) selectionKey.channel();
-		SocketChannel remoteSocketChannel = SocketChannel.open();
+		SocketChannel remoteSocketChannel = configNode.isRemoteUnix()
+				? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
 		remoteSocketChannel.configureBlocking(false);
 
+		boolean connected;
 		try {
-			remoteSocketChannel.connect(configNode.getRemoteSocketAddress());
+			connected = remoteSocketChannel.connect(configNode.getRemoteSocketAddress());
 		} catch (UnresolvedAddressException e) {
 			// If cann't resolve connection address - unregister serverSocketChannel && close remoteSocketChannel
 			LOG.error(e.getMessage(), e);
 			closeChannel(serverSocketChannel);
 			closeChannel(remoteSocketChannel);
 			return;
+		} catch (ClosedByInterruptException e) {
+			throw e;
+		} catch (IOException e) {
+			// Unix domain socket connect fails immediately (no socket file, refused) - drop accepted connection only
+			LOG.info(e.toString());
+			closeChannel(remoteSocketChannel);
+			SocketChannel localSocketChannel = serverSocketChannel.accept();
+			if (localSocketChannel != null) {
+				localSocketChannel.close();
+			}
+			return;
 		}
 
 		SocketChannel localSocketChannel = serverSocketChannel.accept();
+		if (localSocketChannel == null) {
+			closeChannel(remoteSocketChannel);
+			return;
+		}
 		localSocketChannel.configureBlocking(false);
 
+		pairConnections(localSocketChannel, remoteSocketChannel, connected, channelQueues.get(serverSocketChannel));
+	}
+
+	/**
+	 * Register accepted and remote connections as relaying pair
+	 *
+	 * @param localSocketChannel  Accepted connection
+	 * @param remoteSocketChannel Connection to mapping remote address
+	 * @param connected           True if remote connection already established
+	 * @param mappingQueue        Queue of mapping, connections work accounted to
+	 * @throws IOException If an I/O error occurs
+	 */
+	private void pairConnections(SocketChannel localSocketChannel, SocketChannel remoteSocketChannel,
+								 boolean connected, MappingQueue mappingQueue) throws IOException {
 		SelectionKey acceptedSelectionKey = localSocketChannel.register(connectionsSelector, SelectionKey.OP_READ);
-		SelectionKey connectedSelectionKey = remoteSocketChannel.register(connectionsSelector, SelectionKey.OP_CONNECT);
+		// Unix domain socket connection usually established immediately, OP_CONNECT would never be selected then
+		SelectionKey connectedSelectionKey = remoteSocketChannel.register(connectionsSelector,
+				connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
 		connectedSelectionKey.attach(localSocketChannel);
 		acceptedSelectionKey.attach(remoteSocketChannel);
 
 		pendingData.put(localSocketChannel, new LinkedList<ByteBuffer>());
 		pendingData.put(remoteSocketChannel, new LinkedList<ByteBuffer>());
+		channelQueues.put(localSocketChannel, mappingQueue);
+		channelQueues.put(remoteSocketChannel, mappingQueue);
 		openedChannels.add(localSocketChannel);
 		openedChannels.add(remoteSocketChannel);
 
@@ -187,6 +385,147 @@ public class NioProxy implements Runnable {
 		}
 	}
 
+	/**
+	 * Accept connection of address shared by several mappings. Connection waits for its first bytes to select
+	 * mapping
+	 *
+	 * @param selectionKey SelectionKey correspond to acceptable ServerSocketChannel
+	 * @throws IOException If an I/O error occurs
+	 */
+	private void acceptRoutedConnection(SelectionKey selectionKey) throws IOException {
+		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) selectionKey.channel();
+		SocketChannel localSocketChannel = serverSocketChannel.accept();
+		if (localSocketChannel == null) {
+			return;
+		}
+		localSocketChannel.configureBlocking(false);
+		localSocketChannel.register(connectionsSelector, SelectionKey.OP_READ).attach(selectionKey.attachment());
+
+		openedChannels.add(localSocketChannel);
+		channelQueues.put(localSocketChannel, channelQueues.get(serverSocketChannel));
+		sniffBuffers.put(localSocketChannel, ByteBuffer.allocate(SNIFF_BUFFER_SIZE));
+		sniffDeadlines.put(localSocketChannel, System.nanoTime() + sniffTimeout);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug(String.format("Routed connection %s accepted", localSocketChannel.hashCode()));
+		}
+	}
+
+	/**
+	 * Read first bytes of routed connection and try to select its mapping
+	 *
+	 * @param selectionKey SelectionKey correspond to readable routed socketChannel
+	 * @return Bytes read
+	 * @throws IOException If an I/O error occurs
+	 */
+	private int sniffData(SelectionKey selectionKey) throws IOException {
+		SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+		ByteBuffer sniffBuffer = sniffBuffers.get(socketChannel);
+		int numRead;
+		try {
+			numRead = socketChannel.read(sniffBuffer);
+		} catch (ClosedByInterruptException e) {
+			throw e;
+		} catch (IOException e) {
+			LOG.info(e.toString());
+			closeChannel(socketChannel);
+			return 0;
+		}
+
+		if (numRead == -1) { // Closed before any mapping selected
+			closeChannel(socketChannel);
+			return 0;
+		}
+
+		routeConnection(selectionKey, !sniffBuffer.hasRemaining());
+		return numRead;
+	}
+
+	/**
+	 * Route connections with expired sniffing deadline using data received so far
+	 *
+	 * @throws IOException If an I/O error occurs
+	 */
+	private void expireSniffing() throws IOException {
+		long now = System.nanoTime();
+		List<SelectableChannel> expiredChannels = new ArrayList<SelectableChannel>();
+		for (Map.Entry<SelectableChannel, Long> entry : sniffDeadlines.entrySet()) {
+			// nanoTime values compared by difference, they can overflow
+			if (entry.getValue() - now > 0) {
+				break;
+			}
+			expiredChannels.add(entry.getKey());
+		}
+		for (SelectableChannel channel : expiredChannels) {
+			routeConnection(channel.keyFor(connectionsSelector), true);
+		}
+	}
+
+	/**
+	 * Select mapping by routed connection first bytes. If found, connect to mapping remote address and pass
+	 * received bytes there, after that connection relayed as usual
+	 *
+	 * @param selectionKey SelectionKey correspond to routed socketChannel
+	 * @param last         True if no more data can be waited for
+	 * @throws IOException If an I/O error occurs
+	 */
+	private void routeConnection(SelectionKey selectionKey, boolean last) throws IOException {
+		SocketChannel localSocketChannel = (SocketChannel) selectionKey.channel();
+		ByteBuffer sniffed = sniffBuffers.get(localSocketChannel).duplicate();
+		sniffed.flip();
+
+		ConfigNode configNode = ((RouteTable) selectionKey.attachment()).route(sniffed, last);
+		if (configNode == null) {
+			if (last) {
+				LOG.info(String.format("No route for connection %s", localSocketChannel.hashCode()));
+				closeChannel(localSocketChannel);
+			}
+			return;
+		}
+		sniffBuffers.remove(localSocketChannel);
+		sniffDeadlines.remove(localSocketChannel);
+
+		if (LOG.isInfoEnabled()) {
+			LOG.info(String.format("Attempting connect to %s (routed to '%s')", configNode.getRemoteSocketAddress(),
+					configNode.getName()));
+		}
+
+		SocketChannel remoteSocketChannel = configNode.isRemoteUnix()
+				? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+		remoteSocketChannel.configureBlocking(false);
+
+		boolean connected;
+		try {
+			connected = remoteSocketChannel.connect(configNode.getRemoteSocketAddress());
+		} catch (UnresolvedAddressException e) {
+			// Other mappings of this address can work, so only routed connection closed
+			LOG.error(e.getMessage(), e);
+			closeChannel(localSocketChannel);
+			closeChannel(remoteSocketChannel);
+			return;
+		} catch (ClosedByInterruptException e) {
+			throw e;
+		} catch (IOException e) {
+			LOG.info(e.toString());
+			closeChannel(localSocketChannel);
+			closeChannel(remoteSocketChannel);
+			return;
+		}
+
+		pairConnections(localSocketChannel, remoteSocketChannel, connected, nodeQueues.get(configNode));
+
+		// Sniffed bytes are the beginning of client stream, so they are written to remote first
+		if (sniffed.hasRemaining()) {
+			byte write[] = new byte[sniffed.remaining()];
+			sniffed.get(write);
+			pendingData.get(remoteSocketChannel).add(ByteBuffer.wrap(write));
+			if (connected) {
+				SelectionKey remoteSelectionKey = remoteSocketChannel.keyFor(connectionsSelector);
+				remoteSelectionKey.interestOps(remoteSelectionKey.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
 	/**
 	 * Finished connection to selected socketChannel
 	 *
@@ -222,9 +561,10 @@ public class NioProxy implements Runnable {
 	 * Read data from selected readable socketChannel
 	 *
 	 * @param selectionKey SelectionKey correspond to readable socketChannel
+	 * @return Bytes read
 	 * @throws ClosedByInterruptException If current thread interrupt
 	 */
-	private void readData(SelectionKey selectionKey) throws ClosedByInterruptException {
+	private int readData(SelectionKey selectionKey) throws ClosedByInterruptException {
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("Read access " + selectionKey.channel().hashCode());
 		}
@@ -245,12 +585,12 @@ public class NioProxy implements Runnable {
 				LOG.error(exceptionMessage, e);
 			}
 			closeBothConnections(selectionKey);
-			return;
+			return 0;
 		}
 
 		if (numRead == -1) { // If connection was closed remotely
 			closeBothConnections(selectionKey);
-			return;
+			return 0;
 		}
 
 		if (numRead > 0) {
@@ -267,6 +607,7 @@ public class NioProxy implements Runnable {
 				}
 			}
 		}
+		return numRead;
 	}
 
 	/**
@@ -295,8 +636,19 @@ public class NioProxy implements Runnable {
 
 		pendingData.remove(channel);
 		openedChannels.remove(channel);
+		channelQueues.remove(channel);
+		sniffBuffers.remove(channel);
+		sniffDeadlines.remove(channel);
 		try {
+			SocketAddress listenAddress = null;
+			if (channel instanceof ServerSocketChannel) {
+				listenAddress = ((ServerSocketChannel) channel).getLocalAddress();
+			}
 			channel.close();
+			// Unix domain socket file is not removed on close, so next bind to the same path would fail
+			if (listenAddress instanceof UnixDomainSocketAddress) {
+				Files.deleteIfExists(((UnixDomainSocketAddress) listenAddress).getPath());
+			}
 		} catch (IOException e) {
 			LOG.error(e.getMessage(), e);
 		}
@@ -310,19 +662,22 @@ public class NioProxy implements Runnable {
 	 * write pending data into selected writable socketChannel
 	 *
 	 * @param selectionKey SelectionKey correspond to writable socketChannel
+	 * @param bytesLimit   Bytes count after which writing stops, rest of data waits for next write access
+	 * @return Bytes written
 	 * @throws ClosedByInterruptException If current thread interrupt
 	 */
-	private void writeData(SelectionKey selectionKey) throws ClosedByInterruptException {
+	private int writeData(SelectionKey selectionKey, long bytesLimit) throws ClosedByInterruptException {
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("Write access " + selectionKey.channel().hashCode());
 		}
 
 		SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
 		LinkedList<ByteBuffer> queue = pendingData.get(socketChannel);
-		while (!queue.isEmpty()) {
+		int written = 0;
+		while (!queue.isEmpty() && written < bytesLimit) {
 			ByteBuffer writingBuffer = queue.getFirst();
 			try {
-				socketChannel.write(writingBuffer);
+				written += socketChannel.write(writingBuffer);
 			} catch (ClosedByInterruptException e) {
 				throw e;
 			} catch (IOException e) {
@@ -334,7 +689,7 @@ public class NioProxy implements Runnable {
 					LOG.error(exceptionMessage, e);
 				}
 				closeBothConnections(selectionKey);
-				return;
+				return written;
 			}
 			if (writingBuffer.remaining() > 0) { // If not all current buffer data had write into socket
 				break;
@@ -350,5 +705,6 @@ public class NioProxy implements Runnable {
 				closeChannel(socketChannel);
 			}
 		}
+		return written;
 	}
 }
@@ -0,0 +1,170 @@
+package by.dragoon.proxy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extract routing names from the first bytes of client stream. Buffers are read with absolute gets from 0 to
+ * limit, position is not changed.
+ * Every method returns null if more data needed, empty string if stream has no such name, or lower case name.
+ */
+public class ProtocolSniffer {
+
+	private static final int TLS_HANDSHAKE = 0x16;
+	private static final int TLS_CLIENT_HELLO = 0x01;
+	private static final int TLS_RECORD_HEADER_LENGTH = 5;
+	private static final int SERVER_NAME_EXTENSION = 0x0000;
+	private static final int HOST_NAME_TYPE = 0x00;
+	private static final String HOST_HEADER = "host:";
+	// longer request line token can't be an HTTP method
+	private static final int MAX_METHOD_LENGTH = 16;
+
+	private ProtocolSniffer() {
+	}
+
+	/**
+	 * Server name indication of TLS ClientHello. Only ClientHello contained in the first TLS record supported
+	 *
+	 * @param data Received bytes
+	 * @return Server name, empty string or null if more data needed
+	 */
+	public static String serverName(ByteBuffer data) {
+		int limit = data.limit();
+		if (limit < 1) {
+			return null;
+		}
+		if ((data.get(0) & 0xff) != TLS_HANDSHAKE) {
+			return "";
+		}
+		if (limit < TLS_RECORD_HEADER_LENGTH + 1) {
+			return null;
+		}
+		if (data.get(TLS_RECORD_HEADER_LENGTH) != TLS_CLIENT_HELLO) {
+			return "";
+		}
+		int recordEnd = TLS_RECORD_HEADER_LENGTH + unsignedShort(data, 3);
+		if (limit < recordEnd) {
+			// whole ClientHello record needed, it is small and sent at once
+			return null;
+		}
+
+		// handshake type and length, client version, random
+		int position = TLS_RECORD_HEADER_LENGTH + 4 + 2 + 32;
+		// session id
+		if (position + 1 > recordEnd) {
+			return "";
+		}
+		position += 1 + (data.get(position) & 0xff);
+		// cipher suites
+		if (position + 2 > recordEnd) {
+			return "";
+		}
+		position += 2 + unsignedShort(data, position);
+		// compression methods
+		if (position + 1 > recordEnd) {
+			return "";
+		}
+		position += 1 + (data.get(position) & 0xff);
+		// extensions
+		if (position + 2 > recordEnd) {
+			return "";
+		}
+		int extensionsEnd = Math.min(recordEnd, position + 2 + unsignedShort(data, position));
+		position += 2;
+		while (position + 4 <= extensionsEnd) {
+			int extensionType = unsignedShort(data, position);
+			int extensionEnd = position + 4 + unsignedShort(data, position + 2);
+			position += 4;
+			if (extensionEnd > extensionsEnd) {
+				return "";
+			}
+			if (extensionType == SERVER_NAME_EXTENSION) {
+				// server name list length
+				position += 2;
+				while (position + 3 <= extensionEnd) {
+					int nameType = data.get(position) & 0xff;
+					int nameLength = unsignedShort(data, position + 1);
+					position += 3;
+					if (position + nameLength > extensionEnd) {
+						return "";
+					}
+					if (nameType == HOST_NAME_TYPE) {
+						return decode(data, position, nameLength).toLowerCase();
+					}
+					position += nameLength;
+				}
+				return "";
+			}
+			position = extensionEnd;
+		}
+		return "";
+	}
+
+	/**
+	 * Host header of HTTP request, without port
+	 *
+	 * @param data Received bytes
+	 * @return Host, empty string or null if more data needed
+	 */
+	public static String httpHost(ByteBuffer data) {
+		int limit = data.limit();
+		// request line starts with upper case method followed by space
+		int methodLength = 0;
+		while (methodLength < limit && data.get(methodLength) != ' ') {
+			byte symbol = data.get(methodLength);
+			if (symbol < 'A' || symbol > 'Z' || methodLength == MAX_METHOD_LENGTH) {
+				return "";
+			}
+			methodLength++;
+		}
+		if (methodLength == limit) {
+			return null;
+		}
+		if (methodLength == 0) {
+			return "";
+		}
+
+		String text = decode(data, 0, limit);
+		int lineStart = text.indexOf('\n') + 1;
+		if (lineStart == 0) {
+			return null;
+		}
+		while (true) {
+			int lineEnd = text.indexOf('\n', lineStart);
+			if (lineEnd == -1) {
+				return null;
+			}
+			String line = text.substring(lineStart, lineEnd).trim();
+			if ("".equals(line)) {
+				// end of headers
+				return "";
+			}
+			if (line.regionMatches(true, 0, HOST_HEADER, 0, HOST_HEADER.length())) {
+				return stripPort(line.substring(HOST_HEADER.length()).trim()).toLowerCase();
+			}
+			lineStart = lineEnd + 1;
+		}
+	}
+
+	private static String stripPort(String host) {
+		if (host.startsWith("[")) {
+			// IPv6 literal
+			int end = host.indexOf(']');
+			return end == -1 ? host : host.substring(0, end + 1);
+		}
+		int portStart = host.lastIndexOf(':');
+		return portStart == -1 ? host : host.substring(0, portStart);
+	}
+
+	private static int unsignedShort(ByteBuffer data, int index) {
+		return ((data.get(index) & 0xff) << 8) | (data.get(index + 1) & 0xff);
+	}
+
+	private static String decode(ByteBuffer data, int offset, int length) {
+		byte bytes[] = new byte[length];
+		for (int i = 0; i != length; i++) {
+			bytes[i] = data.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+}
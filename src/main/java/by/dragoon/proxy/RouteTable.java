@@ -0,0 +1,130 @@
+package by.dragoon.proxy;
+
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routing rules of mappings sharing one local address, compiled once at start. Rules checked in order: byte
+ * prefix (longest first), TLS server name, HTTP Host header. Mapping without rules is the default route.
+ * Server and host names support leading '*.' wildcard.
+ */
+public class RouteTable {
+
+	private static final Logger LOG = Logger.getLogger(RouteTable.class);
+	private static final String WILDCARD = "*.";
+
+	private Map<String, ConfigNode> sniRoutes = new HashMap<String, ConfigNode>();
+	private Map<String, ConfigNode> hostRoutes = new HashMap<String, ConfigNode>();
+	private byte prefixes[][];
+	private ConfigNode prefixNodes[];
+	private ConfigNode defaultNode;
+
+	public RouteTable(List<ConfigNode> configNodes) {
+		Map<String, ConfigNode> prefixRoutes = new HashMap<String, ConfigNode>();
+		for (ConfigNode configNode : configNodes) {
+			if (!configNode.hasRoutes()) {
+				defaultNode = configNode;
+			}
+			addRoutes(sniRoutes, configNode.getSniNames(), configNode);
+			addRoutes(hostRoutes, configNode.getHostNames(), configNode);
+			addRoutes(prefixRoutes, configNode.getPrefixes(), configNode);
+		}
+
+		List<String> sortedPrefixes = new ArrayList<String>(prefixRoutes.keySet());
+		// longest first, so more specific prefix wins
+		Collections.sort(sortedPrefixes, new Comparator<String>() {
+			@Override
+			public int compare(String first, String second) {
+				return second.length() - first.length();
+			}
+		});
+		prefixes = new byte[sortedPrefixes.size()][];
+		prefixNodes = new ConfigNode[sortedPrefixes.size()];
+		for (int i = 0; i != prefixes.length; i++) {
+			prefixes[i] = sortedPrefixes.get(i).getBytes(StandardCharsets.ISO_8859_1);
+			prefixNodes[i] = prefixRoutes.get(sortedPrefixes.get(i));
+		}
+	}
+
+	private void addRoutes(Map<String, ConfigNode> routes, List<String> names, ConfigNode configNode) {
+		for (String name : names) {
+			ConfigNode conflictNode = routes.get(name);
+			if (conflictNode == null) {
+				routes.put(name, configNode);
+			} else {
+				LOG.error(String.format("Route '%s' of mapping '%s' already used by '%s', skipped", name,
+						configNode.getName(), conflictNode.getName()));
+			}
+		}
+	}
+
+	/**
+	 * Select mapping for client stream
+	 *
+	 * @param data Client stream first bytes, from 0 to limit
+	 * @param last True if no more data will be received before routing (buffer full or timeout)
+	 * @return Mapping, or null if more data needed. If last is true, null means no route
+	 */
+	public ConfigNode route(ByteBuffer data, boolean last) {
+		for (int i = 0; i != prefixes.length; i++) {
+			int compared = Math.min(prefixes[i].length, data.limit());
+			int position = 0;
+			while (position != compared && data.get(position) == prefixes[i][position]) {
+				position++;
+			}
+			if (position == prefixes[i].length) {
+				return prefixNodes[i];
+			}
+			if (position == compared && !last) {
+				// longer data can match this prefix yet
+				return null;
+			}
+		}
+
+		if (!sniRoutes.isEmpty()) {
+			String serverName = ProtocolSniffer.serverName(data);
+			if (serverName == null && !last) {
+				return null;
+			}
+			ConfigNode configNode = findName(sniRoutes, serverName);
+			if (configNode != null) {
+				return configNode;
+			}
+		}
+
+		if (!hostRoutes.isEmpty()) {
+			String host = ProtocolSniffer.httpHost(data);
+			if (host == null && !last) {
+				return null;
+			}
+			ConfigNode configNode = findName(hostRoutes, host);
+			if (configNode != null) {
+				return configNode;
+			}
+		}
+
+		return defaultNode;
+	}
+
+	private ConfigNode findName(Map<String, ConfigNode> routes, String name) {
+		if (name == null || "".equals(name)) {
+			return null;
+		}
+		ConfigNode configNode = routes.get(name);
+		// a.b.example.com matches *.b.example.com, then *.example.com, then *.com
+		int dot = name.indexOf('.');
+		while (configNode == null && dot != -1) {
+			configNode = routes.get(WILDCARD + name.substring(dot + 1));
+			dot = name.indexOf('.', dot + 1);
+		}
+		return configNode;
+	}
+}
@@ -0,0 +1,188 @@
+package by.dragoon.proxy;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MappingQueueTest {
+
+	private final static int BYTES_QUANTUM = 1000;
+	private final static int OPERATIONS_QUANTUM = 3;
+	private final static int OPERATION_BYTES = 100;
+
+	private Selector selector;
+	private List<Pipe> pipes = new ArrayList<Pipe>();
+
+	@Before
+	public void setUp() throws IOException {
+		selector = Selector.open();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (Pipe pipe : pipes) {
+			pipe.source().close();
+			pipe.sink().close();
+		}
+		selector.close();
+	}
+
+	private SelectionKey createKey() throws IOException {
+		Pipe pipe = Pipe.open();
+		pipes.add(pipe);
+		pipe.source().configureBlocking(false);
+		return pipe.source().register(selector, SelectionKey.OP_READ);
+	}
+
+	@Test
+	public void budgetPerWeight() throws IOException {
+		MappingQueue mappingQueue = new MappingQueue(2, OPERATION_BYTES);
+		for (int i = 0; i != 10; i++) {
+			mappingQueue.offer(createKey());
+		}
+
+		// operations budget: 2 * 3
+		mappingQueue.startRound(BYTES_QUANTUM, OPERATIONS_QUANTUM);
+		Assert.assertEquals(2 * BYTES_QUANTUM, mappingQueue.getDeficit());
+		int processed = 0;
+		while (mappingQueue.hasBudget()) {
+			mappingQueue.poll();
+			mappingQueue.charge(0);
+			processed++;
+		}
+		Assert.assertEquals(2 * OPERATIONS_QUANTUM, processed);
+
+		// bytes budget: 2 * 1000, last operation can exceed it
+		mappingQueue.finishRound();
+		mappingQueue.startRound(BYTES_QUANTUM, OPERATIONS_QUANTUM);
+		processed = 0;
+		while (mappingQueue.hasBudget()) {
+			mappingQueue.poll();
+			mappingQueue.charge(1500);
+			processed++;
+		}
+		Assert.assertEquals(2, processed);
+	}
+
+	@Test
+	public void leftoverKeysDeferred() throws IOException {
+		MappingQueue mappingQueue = new MappingQueue(1, OPERATION_BYTES);
+		SelectionKey keys[] = new SelectionKey[5];
+		for (int i = 0; i != keys.length; i++) {
+			keys[i] = createKey();
+			mappingQueue.offer(keys[i]);
+		}
+
+		mappingQueue.startRound(BYTES_QUANTUM, OPERATIONS_QUANTUM);
+		for (int i = 0; i != OPERATIONS_QUANTUM; i++) {
+			Assert.assertSame(keys[i], mappingQueue.poll());
+			mappingQueue.charge(10);
+		}
+		Assert.assertFalse(mappingQueue.hasBudget());
+		mappingQueue.finishRound();
+		Assert.assertFalse(mappingQueue.isEmpty());
+		// unused bytes carried while keys wait
+		Assert.assertEquals(BYTES_QUANTUM - 3 * 10, mappingQueue.getDeficit());
+
+		// selected again key keeps its place, new key goes last
+		SelectionKey newKey = createKey();
+		mappingQueue.offer(newKey);
+		mappingQueue.offer(keys[4]);
+		mappingQueue.startRound(BYTES_QUANTUM, OPERATIONS_QUANTUM);
+		Assert.assertSame(keys[3], mappingQueue.poll());
+		Assert.assertSame(keys[4], mappingQueue.poll());
+		Assert.assertSame(newKey, mappingQueue.poll());
+		Assert.assertTrue(mappingQueue.isEmpty());
+	}
+
+	@Test
+	public void idleMappingResetsDeficit() throws IOException {
+		MappingQueue mappingQueue = new MappingQueue(1, OPERATION_BYTES);
+		mappingQueue.offer(createKey());
+		mappingQueue.startRound(BYTES_QUANTUM, OPERATIONS_QUANTUM);
+		mappingQueue.poll();
+		mappingQueue.charge(10);
+		mappingQueue.finishRound();
+		Assert.assertEquals(0, mappingQueue.getDeficit());
+	}
+
+	@Test
+	public void deficitCapped() throws IOException {
+		MappingQueue mappingQueue = new MappingQueue(2, OPERATION_BYTES);
+		for (int i = 0; i != 100; i++) {
+			mappingQueue.offer(createKey());
+		}
+		// rounds ended by operations budget with almost all bytes unused
+		for (int round = 0; round != 10; round++) {
+			mappingQueue.startRound(BYTES_QUANTUM, OPERATIONS_QUANTUM);
+			Assert.assertTrue(mappingQueue.getDeficit() <= 2 * BYTES_QUANTUM + OPERATION_BYTES);
+			while (mappingQueue.hasBudget()) {
+				mappingQueue.poll();
+				mappingQueue.charge(1);
+			}
+			mappingQueue.finishRound();
+		}
+		Assert.assertFalse(mappingQueue.isEmpty());
+	}
+
+	@Test
+	public void largeWeightBounded() throws IOException {
+		ConfigNode configNode = new ConfigNode("large");
+		configNode.setParameter("weight", "200000000");
+		Assert.assertTrue(configNode.getWeight() > 0);
+		Assert.assertTrue(configNode.getWeight() < 200000000);
+
+		// operations budget must not overflow even for weight passed by code
+		MappingQueue mappingQueue = new MappingQueue(Integer.MAX_VALUE, OPERATION_BYTES);
+		mappingQueue.offer(createKey());
+		mappingQueue.startRound(BYTES_QUANTUM, OPERATIONS_QUANTUM);
+		Assert.assertTrue(mappingQueue.hasBudget());
+	}
+
+	@Test
+	public void pingServedWithinRound() throws IOException {
+		final List<SelectionKey> bulkKeys = new ArrayList<SelectionKey>();
+		final List<SelectionKey> servedKeys = new ArrayList<SelectionKey>();
+		NioProxy nioProxy = new NioProxy(new ArrayList<ConfigNode>()) {
+			@Override
+			int processKey(SelectionKey selectionKey, long bytesLimit) {
+				servedKeys.add(selectionKey);
+				// bulk connections read full buffer every time, ping is small
+				return bulkKeys.contains(selectionKey) ? NioProxy.BUFFER_SIZE : 64;
+			}
+		};
+
+		// bulk mapping is first in round and has more ready keys than its budget
+		MappingQueue bulkQueue = new MappingQueue(1, NioProxy.BUFFER_SIZE);
+		for (int i = 0; i != 100; i++) {
+			bulkKeys.add(createKey());
+			bulkQueue.offer(bulkKeys.get(i));
+		}
+		MappingQueue pingQueue = new MappingQueue(1, NioProxy.BUFFER_SIZE);
+		SelectionKey pingKey = createKey();
+		pingQueue.offer(pingKey);
+		nioProxy.mappingQueues.add(bulkQueue);
+		nioProxy.mappingQueues.add(pingQueue);
+
+		nioProxy.processMappingQueues();
+		Assert.assertTrue("Ping must be served in first round", servedKeys.contains(pingKey));
+		int bulkServed = servedKeys.indexOf(pingKey);
+		Assert.assertTrue(bulkServed <= NioProxy.OPERATIONS_QUANTUM);
+		Assert.assertTrue((long) (bulkServed - 1) * NioProxy.BUFFER_SIZE < NioProxy.BYTES_QUANTUM);
+		Assert.assertEquals(bulkServed + 1, servedKeys.size());
+		Assert.assertFalse("Rest of bulk keys deferred", bulkQueue.isEmpty());
+		Assert.assertTrue(pingQueue.isEmpty());
+
+		// deferred bulk keys continue in next round in their order
+		nioProxy.processMappingQueues();
+		Assert.assertSame(bulkKeys.get(bulkServed), servedKeys.get(bulkServed + 1));
+	}
+}
@@ -0,0 +1,220 @@
+package by.dragoon.proxy;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares relay throughput and round trip latency of loopback TCP and unix domain socket mappings, checking
+ * every echoed byte on both paths. Sizes are kept small for default test run, increase them for real measurement
+ */
+public class RelayBenchmarkTest {
+
+	private final static Logger LOG = Logger.getLogger(RelayBenchmarkTest.class);
+
+	private final static int TCP_LISTEN_PORT = 8790;
+	private final static int TCP_ECHO_PORT = 8791;
+	private final static int TRANSFER_SIZE = 8 * 1024 * 1024;
+	private final static int CHUNK_SIZE = 64 * 1024;
+	private final static int PING_SIZE = 64;
+	private final static int PING_COUNT = 1000;
+
+	private String unixListenPath;
+	private String unixEchoPath;
+	private Thread proxyThread;
+	private List<Thread> echoThreads = new ArrayList<Thread>();
+	private List<ServerSocketChannel> echoChannels = new ArrayList<ServerSocketChannel>();
+
+	@Before
+	public void setUp() throws IOException {
+		File tempDir = new File(System.getProperty("java.io.tmpdir"));
+		unixListenPath = new File(tempDir, "nioproxy-listen-" + System.nanoTime() + ".sock").getPath();
+		unixEchoPath = new File(tempDir, "nioproxy-echo-" + System.nanoTime() + ".sock").getPath();
+
+		startEchoServer(ServerSocketChannel.open(), new InetSocketAddress(TCP_ECHO_PORT));
+		startEchoServer(ServerSocketChannel.open(StandardProtocolFamily.UNIX), UnixDomainSocketAddress.of(unixEchoPath));
+
+		List<ConfigNode> nodesList = new ArrayList<ConfigNode>();
+		ConfigNode tcpNode = new ConfigNode("tcp");
+		tcpNode.setLocalPort(TCP_LISTEN_PORT);
+		tcpNode.setRemoteHost("localhost");
+		tcpNode.setRemotePort(TCP_ECHO_PORT);
+		nodesList.add(tcpNode);
+		ConfigNode unixNode = new ConfigNode("unix");
+		unixNode.setLocalPath(unixListenPath);
+		unixNode.setRemoteHost("unix:" + unixEchoPath);
+		nodesList.add(unixNode);
+
+		proxyThread = new Thread(new NioProxy(nodesList));
+		proxyThread.start();
+		try {
+			Thread.sleep(500);
+		} catch (InterruptedException e) {
+			LOG.error(e, e);
+			Assert.fail();
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		proxyThread.interrupt();
+		try {
+			proxyThread.join();
+		} catch (InterruptedException e) {
+			LOG.error(e, e);
+			Assert.fail();
+		}
+		for (ServerSocketChannel channel : echoChannels) {
+			channel.close();
+		}
+		for (Thread thread : echoThreads) {
+			thread.interrupt();
+		}
+		new File(unixEchoPath).delete();
+		Assert.assertFalse("Proxy must remove its unix socket file", new File(unixListenPath).exists());
+	}
+
+	@Test
+	public void compareTcpAndUnixRelay() throws IOException {
+		SocketAddress tcpAddress = new InetSocketAddress("localhost", TCP_LISTEN_PORT);
+		SocketAddress unixAddress = UnixDomainSocketAddress.of(unixListenPath);
+
+		// warm up both paths before measuring
+		throughput(tcpAddress, TRANSFER_SIZE / 8);
+		throughput(unixAddress, TRANSFER_SIZE / 8);
+
+		double tcpThroughput = throughput(tcpAddress, TRANSFER_SIZE);
+		double unixThroughput = throughput(unixAddress, TRANSFER_SIZE);
+		long tcpLatency[] = latency(tcpAddress);
+		long unixLatency[] = latency(unixAddress);
+
+		LOG.info(String.format("TCP relay:  %.1f MB/s, round trip median %s us, p99 %s us",
+				tcpThroughput, tcpLatency[0] / 1000, tcpLatency[1] / 1000));
+		LOG.info(String.format("Unix relay: %.1f MB/s, round trip median %s us, p99 %s us",
+				unixThroughput, unixLatency[0] / 1000, unixLatency[1] / 1000));
+	}
+
+	/**
+	 * Send data through proxy to echo server and read it back
+	 *
+	 * @return Throughput in megabytes per second
+	 */
+	private double throughput(SocketAddress address, int size) throws IOException {
+		byte array[] = new byte[CHUNK_SIZE];
+		new Random().nextBytes(array);
+		ByteBuffer writeBuffer = ByteBuffer.wrap(array);
+		ByteBuffer readBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+		SocketChannel channel = SocketChannel.open(address);
+		long start = System.nanoTime();
+		int sent = 0;
+		int received = 0;
+		while (received < size) {
+			// keep at most one chunk in flight, otherwise both blocking sides can fill socket buffers
+			if (sent < size && sent - received < CHUNK_SIZE) {
+				writeBuffer.limit(Math.min(CHUNK_SIZE, sent % CHUNK_SIZE + size - sent));
+				writeBuffer.position(sent % CHUNK_SIZE);
+				sent += channel.write(writeBuffer);
+			}
+			readBuffer.clear();
+			int numRead = channel.read(readBuffer);
+			Assert.assertTrue("Connection closed before all data echoed", numRead > -1);
+			for (int i = 0; i != numRead; i++) {
+				Assert.assertEquals(array[(received + i) % CHUNK_SIZE], readBuffer.get(i));
+			}
+			received += numRead;
+		}
+		long time = System.nanoTime() - start;
+		channel.close();
+		return (double) size * 2 / (1024 * 1024) / (time / 1e9);
+	}
+
+	/**
+	 * Measure small message round trips through proxy
+	 *
+	 * @return Median and 99th percentile round trip time in nanoseconds
+	 */
+	private long[] latency(SocketAddress address) throws IOException {
+		ByteBuffer writeBuffer = ByteBuffer.allocate(PING_SIZE);
+		ByteBuffer readBuffer = ByteBuffer.allocate(PING_SIZE);
+		long times[] = new long[PING_COUNT];
+
+		SocketChannel channel = SocketChannel.open(address);
+		for (int i = 0; i != PING_COUNT; i++) {
+			writeBuffer.clear();
+			Arrays.fill(writeBuffer.array(), (byte) i);
+			readBuffer.clear();
+			long start = System.nanoTime();
+			while (writeBuffer.hasRemaining()) {
+				channel.write(writeBuffer);
+			}
+			while (readBuffer.hasRemaining()) {
+				Assert.assertTrue("Connection closed before ping echoed", channel.read(readBuffer) > -1);
+			}
+			times[i] = System.nanoTime() - start;
+			Assert.assertArrayEquals("Ping echoed corrupted", writeBuffer.array(), readBuffer.array());
+		}
+		channel.close();
+
+		Arrays.sort(times);
+		return new long[]{times[PING_COUNT / 2], times[PING_COUNT * 99 / 100]};
+	}
+
+	private void startEchoServer(final ServerSocketChannel serverChannel, SocketAddress address) throws IOException {
+		serverChannel.bind(address);
+		echoChannels.add(serverChannel);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						final SocketChannel channel = serverChannel.accept();
+						new Thread(new Runnable() {
+							@Override
+							public void run() {
+								echo(channel);
+							}
+						}).start();
+					}
+				} catch (IOException e) {
+					// echo server channel closed in tearDown
+					LOG.debug(e.toString());
+				}
+			}
+		});
+		echoThreads.add(thread);
+		thread.start();
+	}
+
+	private void echo(SocketChannel channel) {
+		ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+		try {
+			while (channel.read(buffer) > -1) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				buffer.clear();
+			}
+			channel.close();
+		} catch (IOException e) {
+			LOG.debug(e.toString());
+		}
+	}
+}
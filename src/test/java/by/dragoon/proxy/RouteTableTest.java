@@ -0,0 +1,208 @@
+package by.dragoon.proxy;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+public class RouteTableTest {
+
+	private final static Logger LOG = Logger.getLogger(RouteTableTest.class);
+
+	private final static int ROUTED_LISTEN_PORT = 8792;
+	private final static int FIRST_BACKEND_PORT = 8793;
+	private final static int SECOND_BACKEND_PORT = 8794;
+	private final static long SNIFF_TIMEOUT = 200;
+	private final static String HTTP_REQUEST = "GET / HTTP/1.1\r\nUser-Agent: test\r\nHost: Api.Example.com:8080\r\n\r\n";
+
+	private ConfigNode tlsNode = createNode("tls", "sni", "secure.example.com, *.wild.example.com");
+	private ConfigNode httpNode = createNode("http", "host", "api.example.com");
+	private ConfigNode sshNode = createNode("ssh", "prefix", "SSH-");
+	private ConfigNode defaultNode = createNode("default", null, null);
+	private RouteTable routeTable = new RouteTable(Arrays.asList(tlsNode, httpNode, sshNode, defaultNode));
+
+	private static ConfigNode createNode(String name, String parameter, String value) {
+		ConfigNode configNode = new ConfigNode(name);
+		configNode.setLocalPort(ROUTED_LISTEN_PORT);
+		configNode.setRemoteHost("localhost");
+		configNode.setRemotePort("tls".equals(name) ? FIRST_BACKEND_PORT : SECOND_BACKEND_PORT);
+		if (parameter != null) {
+			configNode.setParameter(parameter, value);
+		}
+		return configNode;
+	}
+
+	@Test
+	public void routeByServerName() {
+		byte clientHello[] = clientHello("Secure.Example.com");
+		Assert.assertSame(tlsNode, routeTable.route(ByteBuffer.wrap(clientHello), false));
+		Assert.assertSame(tlsNode, routeTable.route(ByteBuffer.wrap(clientHello("a.b.wild.example.com")), false));
+		Assert.assertSame(defaultNode, routeTable.route(ByteBuffer.wrap(clientHello("other.example.com")), false));
+		// incomplete record waits for more data, unless nothing more can be received
+		ByteBuffer part = ByteBuffer.wrap(clientHello, 0, clientHello.length - 1).slice();
+		Assert.assertNull(routeTable.route(part, false));
+		Assert.assertSame(defaultNode, routeTable.route(part, true));
+	}
+
+	@Test
+	public void routeByHost() {
+		byte request[] = HTTP_REQUEST.getBytes(StandardCharsets.ISO_8859_1);
+		Assert.assertSame(httpNode, routeTable.route(ByteBuffer.wrap(request), false));
+		Assert.assertNull(routeTable.route(ByteBuffer.wrap(request, 0, 20).slice(), false));
+		byte otherRequest[] = "POST /x HTTP/1.0\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+		Assert.assertSame(defaultNode, routeTable.route(ByteBuffer.wrap(otherRequest), false));
+	}
+
+	@Test
+	public void routeByPrefix() {
+		Assert.assertSame(sshNode, routeTable.route(ByteBuffer.wrap("SSH-2.0-OpenSSH\r\n".getBytes()), false));
+		Assert.assertNull(routeTable.route(ByteBuffer.wrap("SS".getBytes()), false));
+		Assert.assertSame(defaultNode, routeTable.route(ByteBuffer.wrap("SS".getBytes()), true));
+		Assert.assertSame(defaultNode, routeTable.route(ByteBuffer.wrap(new byte[]{0, 1, 2}), false));
+	}
+
+	@Test
+	public void emptyPrefixSkipped() {
+		ConfigNode configNode = new ConfigNode("empty");
+		configNode.setParameter("prefix", "");
+		Assert.assertFalse(configNode.hasRoutes());
+	}
+
+	@Test
+	public void routedRelay() throws IOException {
+		ServerSocketChannel firstBackend = ServerSocketChannel.open();
+		firstBackend.bind(new InetSocketAddress(FIRST_BACKEND_PORT));
+		ServerSocketChannel secondBackend = ServerSocketChannel.open();
+		secondBackend.bind(new InetSocketAddress(SECOND_BACKEND_PORT));
+
+		Thread proxyThread = startProxy(Arrays.asList(tlsNode, httpNode));
+		try {
+			byte clientHello[] = clientHello("secure.example.com");
+			Assert.assertArrayEquals(clientHello, relay(clientHello, firstBackend));
+			byte request[] = HTTP_REQUEST.getBytes(StandardCharsets.ISO_8859_1);
+			Assert.assertArrayEquals(request, relay(request, secondBackend));
+		} finally {
+			stopProxy(proxyThread);
+			firstBackend.close();
+			secondBackend.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void timeoutRoutesToDefault() throws IOException {
+		ServerSocketChannel secondBackend = ServerSocketChannel.open();
+		secondBackend.bind(new InetSocketAddress(SECOND_BACKEND_PORT));
+
+		Thread proxyThread = startProxy(Arrays.asList(tlsNode, httpNode, defaultNode));
+		try {
+			// headers never completed, so Host rule can't decide
+			byte request[] = "GET / HTTP/1.1\r\n".getBytes(StandardCharsets.ISO_8859_1);
+			Assert.assertArrayEquals(request, relay(request, secondBackend));
+		} finally {
+			stopProxy(proxyThread);
+			secondBackend.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void timeoutWithoutDefaultCloses() throws IOException {
+		Thread proxyThread = startProxy(Arrays.asList(tlsNode, httpNode));
+		try {
+			SocketChannel clientChannel = SocketChannel.open(new InetSocketAddress("localhost", ROUTED_LISTEN_PORT));
+			clientChannel.write(ByteBuffer.wrap("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+			Assert.assertEquals(-1, clientChannel.read(ByteBuffer.allocate(16)));
+			clientChannel.close();
+		} finally {
+			stopProxy(proxyThread);
+		}
+	}
+
+	private Thread startProxy(List<ConfigNode> nodesList) {
+		NioProxy nioProxy = new NioProxy(nodesList);
+		nioProxy.setSniffTimeout(SNIFF_TIMEOUT);
+		Thread proxyThread = new Thread(nioProxy);
+		proxyThread.start();
+		try {
+			Thread.sleep(500);
+		} catch (InterruptedException e) {
+			LOG.error(e, e);
+			Assert.fail();
+		}
+		return proxyThread;
+	}
+
+	private void stopProxy(Thread proxyThread) {
+		proxyThread.interrupt();
+		try {
+			proxyThread.join();
+		} catch (InterruptedException e) {
+			LOG.error(e, e);
+		}
+	}
+
+	/**
+	 * Send data to routed port and read it on expected backend
+	 */
+	private byte[] relay(byte data[], ServerSocketChannel backend) throws IOException {
+		SocketChannel clientChannel = SocketChannel.open(new InetSocketAddress("localhost", ROUTED_LISTEN_PORT));
+		clientChannel.write(ByteBuffer.wrap(data));
+		SocketChannel backendChannel = backend.accept();
+		ByteBuffer received = ByteBuffer.allocate(data.length);
+		while (received.hasRemaining()) {
+			Assert.assertTrue(backendChannel.read(received) > -1);
+		}
+		backendChannel.close();
+		clientChannel.close();
+		return received.array();
+	}
+
+	private static byte[] clientHello(String serverName) {
+		byte name[] = serverName.getBytes(StandardCharsets.US_ASCII);
+		ByteArrayOutputStream extensions = new ByteArrayOutputStream();
+		// unrelated extension before server name
+		writeShort(extensions, 0x000b);
+		writeShort(extensions, 2);
+		writeShort(extensions, 0x0100);
+		writeShort(extensions, 0x0000);
+		writeShort(extensions, name.length + 5);
+		writeShort(extensions, name.length + 3);
+		extensions.write(0);
+		writeShort(extensions, name.length);
+		extensions.write(name, 0, name.length);
+
+		ByteArrayOutputStream hello = new ByteArrayOutputStream();
+		writeShort(hello, 0x0303);
+		hello.write(new byte[32], 0, 32);
+		hello.write(0);
+		writeShort(hello, 2);
+		writeShort(hello, 0x1301);
+		hello.write(1);
+		hello.write(0);
+		writeShort(hello, extensions.size());
+		hello.write(extensions.toByteArray(), 0, extensions.size());
+
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		record.write(0x16);
+		writeShort(record, 0x0301);
+		writeShort(record, hello.size() + 4);
+		record.write(0x01);
+		record.write(0);
+		writeShort(record, hello.size());
+		record.write(hello.toByteArray(), 0, hello.size());
+		return record.toByteArray();
+	}
+
+	private static void writeShort(ByteArrayOutputStream stream, int value) {
+		stream.write(value >> 8);
+		stream.write(value);
+	}
+}
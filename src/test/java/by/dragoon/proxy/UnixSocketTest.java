@@ -0,0 +1,155 @@
+package by.dragoon.proxy;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class UnixSocketTest {
+
+	private final static Logger LOG = Logger.getLogger(UnixSocketTest.class);
+
+	private final static int TCP_LISTEN_PORT = 8799;
+	private final static byte MESSAGE[] = "ping".getBytes();
+
+	private String unixListenPath;
+	private String unixEchoPath;
+	private ServerSocketChannel echoChannel;
+	private Thread proxyThread;
+
+	@Before
+	public void setUp() throws IOException {
+		File tempDir = new File(System.getProperty("java.io.tmpdir"));
+		unixListenPath = new File(tempDir, "nioproxy-test-listen-" + System.nanoTime() + ".sock").getPath();
+		unixEchoPath = new File(tempDir, "nioproxy-test-echo-" + System.nanoTime() + ".sock").getPath();
+
+		echoChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		echoChannel.bind(UnixDomainSocketAddress.of(unixEchoPath));
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						echo(echoChannel.accept());
+					}
+				} catch (IOException e) {
+					// echo server channel closed in tearDown
+					LOG.debug(e.toString());
+				}
+			}
+		}).start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (proxyThread != null) {
+			proxyThread.interrupt();
+			try {
+				proxyThread.join();
+			} catch (InterruptedException e) {
+				LOG.error(e, e);
+				Assert.fail();
+			}
+		}
+		echoChannel.close();
+		new File(unixEchoPath).delete();
+		new File(unixListenPath).delete();
+	}
+
+	@Test
+	public void bindOverLeftoverSocketFile() throws IOException {
+		// Socket file left by killed proxy: closed channel does not remove it
+		ServerSocketChannel leftoverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		leftoverChannel.bind(UnixDomainSocketAddress.of(unixListenPath));
+		leftoverChannel.close();
+		Assert.assertTrue(new File(unixListenPath).exists());
+
+		ConfigNode unixNode = new ConfigNode("unix");
+		unixNode.setLocalPath(unixListenPath);
+		unixNode.setRemoteHost("unix:" + unixEchoPath);
+		startProxy(Arrays.asList(unixNode));
+
+		Assert.assertArrayEquals(MESSAGE, sendMessage(UnixDomainSocketAddress.of(unixListenPath)));
+	}
+
+	@Test
+	public void unbindablePathSkipsOnlyItsMapping() throws IOException {
+		ConfigNode missingDirectoryNode = new ConfigNode("missingDirectory");
+		missingDirectoryNode.setLocalPath(new File(unixListenPath + ".missing", "proxy.sock").getPath());
+		missingDirectoryNode.setRemoteHost("unix:" + unixEchoPath);
+		ConfigNode longPathNode = new ConfigNode("longPath");
+		char longName[] = new char[200];
+		Arrays.fill(longName, 'a');
+		longPathNode.setLocalPath(new File(System.getProperty("java.io.tmpdir"), new String(longName)).getPath());
+		longPathNode.setRemoteHost("unix:" + unixEchoPath);
+		ConfigNode tcpNode = new ConfigNode("tcp");
+		tcpNode.setLocalPort(TCP_LISTEN_PORT);
+		tcpNode.setRemoteHost("unix:" + unixEchoPath);
+
+		List<ConfigNode> nodesList = new ArrayList<ConfigNode>();
+		nodesList.add(missingDirectoryNode);
+		nodesList.add(longPathNode);
+		nodesList.add(tcpNode);
+		startProxy(nodesList);
+
+		Assert.assertTrue("Proxy must keep working", proxyThread.isAlive());
+		Assert.assertArrayEquals(MESSAGE, sendMessage(new InetSocketAddress("localhost", TCP_LISTEN_PORT)));
+	}
+
+	private void startProxy(List<ConfigNode> nodesList) {
+		proxyThread = new Thread(new NioProxy(nodesList));
+		proxyThread.start();
+		try {
+			Thread.sleep(500);
+		} catch (InterruptedException e) {
+			LOG.error(e, e);
+			Assert.fail();
+		}
+	}
+
+	private byte[] sendMessage(SocketAddress address) throws IOException {
+		SocketChannel channel = SocketChannel.open(address);
+		channel.write(ByteBuffer.wrap(MESSAGE));
+		ByteBuffer echoBuffer = ByteBuffer.allocate(MESSAGE.length);
+		while (echoBuffer.hasRemaining()) {
+			Assert.assertTrue(channel.read(echoBuffer) > -1);
+		}
+		channel.close();
+		return echoBuffer.array();
+	}
+
+	private void echo(final SocketChannel channel) {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ByteBuffer buffer = ByteBuffer.allocate(1024);
+				try {
+					while (channel.read(buffer) > -1) {
+						buffer.flip();
+						while (buffer.hasRemaining()) {
+							channel.write(buffer);
+						}
+						buffer.clear();
+					}
+					channel.close();
+				} catch (IOException e) {
+					LOG.debug(e.toString());
+				}
+			}
+		}).start();
+	}
+}